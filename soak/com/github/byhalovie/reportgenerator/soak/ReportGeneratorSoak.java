@@ -0,0 +1,296 @@
+/*
+ * Copyright 2016 byhalovIE.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.byhalovie.reportgenerator.soak;
+
+import com.github.byhalovie.reportgenerator.ReportGenerator;
+import com.github.byhalovie.reportgenerator.ReportGeneratorException;
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.ThreadMXBean;
+import java.lang.reflect.Method;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Нагрузочный прогон генератора отчетов. Проверяет отчет по эталону
+ * example-report-test.txt, затем формирует отчет по синтетическим данным и
+ * измеряет выделенную память на строку, пиковое использование кучи,
+ * количество сборок мусора и скорость. При формировании в несколько потоков
+ * отчет дополнительно сверяется с однопоточным по тем же данным. Завершается
+ * с кодом 1, если эталон не совпал, многопоточный отчет отличается от
+ * однопоточного или превышено хотя бы одно ограничение.
+ *
+ * Параметры задаются системными свойствами (0 - ограничение не проверяется):
+ * <pre>
+ * soak.rows, soak.columns, soak.minField, soak.maxField, soak.cyrillic,
+ * soak.seed, soak.width, soak.height, soak.shards, soak.runs,
+ * soak.maxBytesPerRow, soak.maxHeapMb, soak.maxGcCount, soak.minRowsPerSecond
+ * </pre>
+ *
+ * @author byhalovIE
+ */
+public final class ReportGeneratorSoak {
+
+    private final List<String> failures = new ArrayList<>();
+
+    /**
+     * @param args каталог проекта, в котором лежат settings.xml,
+     * source-data.tsv и example-report-test.txt
+     */
+    public static void main(String[] args) throws Exception {
+
+        File projectDir = new File(args.length > 0 ? args[0] : ".");
+
+        ReportGeneratorSoak soak = new ReportGeneratorSoak();
+        soak.checkReference(projectDir);
+        soak.run();
+
+        if (!soak.failures.isEmpty()) {
+            for (String failure : soak.failures) {
+                System.out.println("FAILED: " + failure);
+            }
+            System.exit(1);
+        }
+        System.out.println("PASSED");
+    }
+
+    /**
+     * Сравнивает отчет по примеру из задания с эталонным отчетом.
+     */
+    private void checkReference(File projectDir)
+            throws IOException, ReportGeneratorException {
+
+        String report = ReportGenerator.generateReport(
+                new File(projectDir, "source-data.tsv").getPath(),
+                new File(projectDir, "settings.xml").getPath());
+
+        String expected = new String(Files.readAllBytes(
+                new File(projectDir, "example-report-test.txt").toPath()),
+                Charset.forName("UTF-16"));
+
+        if (!expected.equals(report)) {
+            failures.add("report differs from example-report-test.txt");
+        }
+        System.out.println("reference report: "
+                + (expected.equals(report) ? "matches" : "differs"));
+    }
+
+    /**
+     * Формирует отчеты по синтетическим данным и проверяет ограничения.
+     */
+    private void run() throws IOException, ReportGeneratorException {
+
+        long rows = Long.getLong("soak.rows", 100000);
+        int columns = Integer.getInteger("soak.columns", 4);
+        int runs = Integer.getInteger("soak.runs", 2);
+        int width = Integer.getInteger("soak.width", 12);
+        int height = Integer.getInteger("soak.height", 60);
+        int shards = Integer.getInteger("soak.shards", 1);
+
+        SyntheticData data = new SyntheticData(rows, columns,
+                Integer.getInteger("soak.minField", 1),
+                Integer.getInteger("soak.maxField", 40),
+                Double.parseDouble(System.getProperty("soak.cyrillic", "0.5")),
+                Long.getLong("soak.seed", 1));
+
+        File directory = Files.createTempDirectory("report-soak").toFile();
+        File tsvFile = new File(directory, "source-data.tsv");
+        File settingsFile = new File(directory, "settings.xml");
+        File singleSettingsFile = new File(directory, "settings-single.xml");
+
+        try {
+            data.writeTsv(tsvFile);
+            data.writeSettings(settingsFile, width, height, shards);
+
+            System.out.println("rows: " + rows + ", columns: " + columns
+                    + ", source: " + tsvFile.length() + " bytes");
+
+            //  Первые прогоны прогревают JIT, ограничения проверяются
+            //  по последнему
+            String report = null;
+            for (int run = 1; run <= runs; run++) {
+                report = measure(run, rows, tsvFile, settingsFile, run == runs);
+            }
+
+            //  Сверка выполняется после замеров и на них не влияет
+            if (shards > 1) {
+                data.writeSettings(singleSettingsFile, width, height, 1);
+                checkSharded(report, tsvFile, singleSettingsFile);
+            }
+
+        } finally {
+            tsvFile.delete();
+            settingsFile.delete();
+            singleSettingsFile.delete();
+            directory.delete();
+        }
+    }
+
+    /**
+     * Сравнивает отчет, сформированный в несколько потоков, с однопоточным
+     * отчетом по тем же данным.
+     */
+    private void checkSharded(String report, File tsvFile, File singleSettingsFile)
+            throws ReportGeneratorException {
+
+        String expected = ReportGenerator.generateReport(
+                tsvFile.getPath(), singleSettingsFile.getPath());
+
+        if (expected.equals(report)) {
+            System.out.println("sharded report: matches single-threaded");
+            return;
+        }
+
+        int index = 0;
+        int length = Math.min(expected.length(), report.length());
+        while (index < length && expected.charAt(index) == report.charAt(index)) {
+            index++;
+        }
+        System.out.println("sharded report: differs from single-threaded");
+        failures.add("sharded report differs from single-threaded at char " + index
+                + " (lengths " + report.length() + " and " + expected.length() + ")");
+    }
+
+    /**
+     * Формирует отчет, выводит замеры и при check проверяет ограничения.
+     *
+     * @return сформированный отчет
+     */
+    private String measure(int run, long rows, File tsvFile, File settingsFile,
+            boolean check) throws ReportGeneratorException {
+
+        boolean sharded = Integer.getInteger("soak.shards", 1) > 1;
+
+        System.gc();
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            pool.resetPeakUsage();
+        }
+        long gcCountBefore = getGcCount();
+        long allocatedBefore = getAllocatedBytes(sharded);
+        long start = System.nanoTime();
+
+        String report = ReportGenerator.generateReport(
+                tsvFile.getPath(), settingsFile.getPath());
+
+        long elapsed = System.nanoTime() - start;
+        long allocatedAfter = getAllocatedBytes(sharded);
+        long allocated = allocatedBefore < 0 || allocatedAfter < 0
+                ? -1 : allocatedAfter - allocatedBefore;
+        long gcCount = getGcCount() - gcCountBefore;
+        long peakHeap = getPeakHeap();
+
+        double seconds = elapsed / 1e9;
+        long rowsPerSecond = (long) (rows / seconds);
+        long bytesPerRow = allocated < 0 ? -1 : allocated / Math.max(1, rows);
+
+        System.out.printf("run %d: %.2f s, %d rows/s, %s bytes allocated per row"
+                + " (%s), peak heap %d MB, %d GC, report %d chars%n",
+                run, seconds, rowsPerSecond,
+                bytesPerRow < 0 ? "unknown" : Long.toString(bytesPerRow),
+                sharded ? "all threads" : "calling thread",
+                peakHeap >> 20, gcCount, report.length());
+
+        if (!check) {
+            return report;
+        }
+
+        long maxBytesPerRow = Long.getLong("soak.maxBytesPerRow", 0);
+        if (maxBytesPerRow > 0 && bytesPerRow < 0) {
+            System.out.println("NOTICE: allocation is not measurable on this JVM"
+                    + (sharded ? " with soak.shards > 1" : "")
+                    + ", soak.maxBytesPerRow is not checked");
+        } else if (maxBytesPerRow > 0 && bytesPerRow > maxBytesPerRow) {
+            failures.add(bytesPerRow + " bytes allocated per row, budget "
+                    + maxBytesPerRow);
+        }
+
+        long maxHeapMb = Long.getLong("soak.maxHeapMb", 0);
+        if (maxHeapMb > 0 && peakHeap >> 20 > maxHeapMb) {
+            failures.add("peak heap " + (peakHeap >> 20) + " MB, budget "
+                    + maxHeapMb + " MB");
+        }
+
+        long maxGcCount = Long.getLong("soak.maxGcCount", 0);
+        if (maxGcCount > 0 && gcCount > maxGcCount) {
+            failures.add(gcCount + " GC, budget " + maxGcCount);
+        }
+
+        long minRowsPerSecond = Long.getLong("soak.minRowsPerSecond", 0);
+        if (minRowsPerSecond > 0 && rowsPerSecond < minRowsPerSecond) {
+            failures.add(rowsPerSecond + " rows/s, budget " + minRowsPerSecond);
+        }
+
+        return report;
+    }
+
+    /**
+     * Возвращает число байт, выделенных вызывающим потоком, или при
+     * формировании в несколько потоков - всеми потоками JVM. Потоки
+     * формирования завершаются вместе с отчетом, поэтому их счетчики нельзя
+     * прочитать по отдельности; общий счетчик есть только в JDK 21 и новее
+     * и вызывается через отражение. Возвращает -1, если счетчик недоступен.
+     */
+    private static long getAllocatedBytes(boolean allThreads) {
+
+        ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+        if (!(threadBean instanceof com.sun.management.ThreadMXBean)) {
+            return -1;
+        }
+        com.sun.management.ThreadMXBean allocationBean
+                = (com.sun.management.ThreadMXBean) threadBean;
+
+        if (!allThreads) {
+            return allocationBean.getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+
+        try {
+            Method method = com.sun.management.ThreadMXBean.class
+                    .getMethod("getTotalThreadAllocatedBytes");
+            return (Long) method.invoke(allocationBean);
+        } catch (ReflectiveOperationException | UnsupportedOperationException exception) {
+            return -1;
+        }
+    }
+
+    private static long getGcCount() {
+        long count = 0;
+        for (GarbageCollectorMXBean collector
+                : ManagementFactory.getGarbageCollectorMXBeans()) {
+            count += Math.max(0, collector.getCollectionCount());
+        }
+        return count;
+    }
+
+    /**
+     * Сумма пикового использования всех пулов кучи с момента сброса. Пики
+     * пулов достигаются в разное время, поэтому это оценка сверху.
+     */
+    private static long getPeakHeap() {
+        long peak = 0;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                peak += pool.getPeakUsage().getUsed();
+            }
+        }
+        return peak;
+    }
+}
@@ -0,0 +1,157 @@
+/*
+ * Copyright 2016 byhalovIE.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.byhalovie.reportgenerator.soak;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.Random;
+
+/**
+ * Детерминированный генератор синтетических данных для нагрузочного
+ * прогона: tsv файл в UTF-16 и файл настроек к нему. При одинаковых
+ * параметрах и seed файлы получаются одинаковыми.
+ *
+ * @author byhalovIE
+ */
+public final class SyntheticData {
+
+    private static final String CYRILLIC
+            = "абвгдеёжзийклмнопрстуфхцчшщъыьэюяАБВГДЕЁЖЗИЙКЛМНОПРСТУФХЦЧШЩЪЫЬЭЮЯ";
+    private static final String ASCII
+            = "abcdefghijklmnopqrstuvwxyzABCDEFGHIJKLMNOPQRSTUVWXYZ0123456789";
+    private static final String DELIMITERS = " /-.,";
+
+    private final long rows;
+    private final int columns;
+    private final int minFieldLength;
+    private final int maxFieldLength;
+    private final double cyrillicShare;
+    private final long seed;
+
+    /**
+     * @param rows количество строк
+     * @param columns количество полей в строке
+     * @param minFieldLength минимальная длина поля, не меньше 1
+     * @param maxFieldLength максимальная длина поля
+     * @param cyrillicShare доля кириллических букв от 0 до 1
+     * @param seed начальное значение генератора случайных чисел
+     */
+    public SyntheticData(long rows, int columns, int minFieldLength,
+            int maxFieldLength, double cyrillicShare, long seed) {
+
+        if (minFieldLength < 1 || maxFieldLength < minFieldLength) {
+            throw new IllegalArgumentException("Invalid field length range.");
+        }
+
+        this.rows = rows;
+        this.columns = columns;
+        this.minFieldLength = minFieldLength;
+        this.maxFieldLength = maxFieldLength;
+        this.cyrillicShare = cyrillicShare;
+        this.seed = seed;
+    }
+
+    /**
+     * Записывает tsv файл с данными в кодировке UTF-16.
+     *
+     * @param tsvFile файл для записи
+     * @throws IOException
+     */
+    public void writeTsv(File tsvFile) throws IOException {
+
+        Random random = new Random(seed);
+        StringBuilder field = new StringBuilder(maxFieldLength);
+
+        try (Writer writer = new BufferedWriter(new OutputStreamWriter(
+                new FileOutputStream(tsvFile), "UTF-16"), 1 << 16)) {
+
+            for (long row = 0; row < rows; row++) {
+                for (int column = 0; column < columns; column++) {
+                    if (column > 0) {
+                        writer.write('\t');
+                    }
+                    writer.write(nextField(random, field));
+                }
+                writer.write("\r\n");
+            }
+        }
+    }
+
+    /**
+     * Записывает файл настроек с одинаковой шириной всех колонок.
+     *
+     * @param settingsFile файл для записи
+     * @param columnWidth ширина колонки
+     * @param pageHeight высота страницы
+     * @param shards количество потоков формирования отчета
+     * @throws IOException
+     */
+    public void writeSettings(File settingsFile, int columnWidth, int pageHeight,
+            int shards) throws IOException {
+
+        //  Ширина страницы равна ширине строки таблицы с разделителями
+        int pageWidth = 1 + columns * (columnWidth + 3);
+
+        try (Writer writer = new OutputStreamWriter(
+                new FileOutputStream(settingsFile), "UTF-8")) {
+
+            writer.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+            writer.write("<settings>\n");
+            writer.write("\t<page>\n");
+            writer.write("\t\t<width>" + pageWidth + "</width>\n");
+            writer.write("\t\t<height>" + pageHeight + "</height>\n");
+            writer.write("\t</page>\n");
+            writer.write("\t<columns>\n");
+            for (int column = 0; column < columns; column++) {
+                writer.write("\t\t<column>\n");
+                writer.write("\t\t\t<title>Колонка " + (column + 1) + "</title>\n");
+                writer.write("\t\t\t<width>" + columnWidth + "</width>\n");
+                writer.write("\t\t</column>\n");
+            }
+            writer.write("\t</columns>\n");
+            writer.write("\t<shards>" + shards + "</shards>\n");
+            writer.write("</settings>\n");
+        }
+    }
+
+    /**
+     * Формирует очередное поле: слова из кириллических и латинских символов,
+     * разделенные пробелами и знаками препинания. Поле не начинается и не
+     * заканчивается пробелом, чтобы разбор tsv его не изменил.
+     */
+    private String nextField(Random random, StringBuilder field) {
+
+        field.setLength(0);
+        int length = minFieldLength + random.nextInt(maxFieldLength - minFieldLength + 1);
+
+        for (int i = 0; i < length; i++) {
+            boolean edge = i == 0 || i == length - 1;
+            if (!edge && random.nextInt(6) == 0) {
+                field.append(DELIMITERS.charAt(random.nextInt(DELIMITERS.length())));
+            } else if (random.nextDouble() < cyrillicShare) {
+                field.append(CYRILLIC.charAt(random.nextInt(CYRILLIC.length())));
+            } else {
+                field.append(ASCII.charAt(random.nextInt(ASCII.length())));
+            }
+        }
+
+        return field.toString();
+    }
+}
@@ -36,7 +36,7 @@ public class Main {
      */
     public static void main(String[] args) {
 
-        if (args.length != 3) {
+        if (args.length != 3 && args.length != 4) {
             System.out.println("Incorrect number of arguments");
         }
 
@@ -47,8 +47,10 @@ public class Main {
         PrintWriter printWriter = null;
         try {
 
-            String generatedReport = ReportGenerator
-                    .generateReport(sourceDataPath, settingsPath);
+            //  Необязательный четвертый параметр - путь к двоичному кэшу данных
+            String generatedReport = args.length > 3
+                    ? ReportGenerator.generateReport(sourceDataPath, settingsPath, args[3])
+                    : ReportGenerator.generateReport(sourceDataPath, settingsPath);
 
             File reportFile = new File(reportPath);
             if (!reportFile.exists()) {
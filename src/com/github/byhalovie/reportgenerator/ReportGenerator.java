@@ -15,10 +15,18 @@
  */
 package com.github.byhalovie.reportgenerator;
 
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Deque;
 import java.util.Iterator;
 import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -250,52 +258,177 @@ public final class ReportGenerator {
         return headRow;
     }
 
+    /**
+     * Вычисляет высоту поля после форматирования по заданной ширине, не
+     * формируя самих строк. Повторяет правила formatFieldToWidth.
+     *
+     * @param field Поле, подлежащее форматированию
+     * @param lenght Ширина, к которой привести поле.
+     * @return Количество строк в отформатированном поле
+     */
+    private static int getFieldHeight(String field, int lenght) {
+
+        int height = 0;
+        int currentLength = 0;
+
+        int position = getTokenEnd(field, 0);
+        if (position == 0) {
+            //  Как и в formatFieldToWidth, пустое поле не имеет токенов
+            throw new NoSuchElementException();
+        }
+        int token = position;
+
+        do {
+            if (currentLength + token <= lenght) {
+
+                currentLength = currentLength + token;
+                if (position < field.length()) {
+
+                    int tokenEnd = getTokenEnd(field, position);
+                    token = tokenEnd - position;
+                    position = tokenEnd;
+                } else {
+
+                    height++;
+                    break;
+                }
+
+            } else if (currentLength > 0) {
+
+                height++;
+                if (token > lenght) {
+                    token = token - (lenght - currentLength);
+                }
+                currentLength = 0;
+
+            } else {
+
+                height++;
+                token = token - lenght;
+            }
+        } while (true);
+
+        return height;
+    }
+
+    /**
+     * Возвращает позицию конца токена, начинающегося в позиции start. Токены
+     * те же, что и в getDelimitedTokens.
+     */
+    private static int getTokenEnd(String field, int start) {
+
+        if (start >= field.length()) {
+            return start;
+        }
+
+        char currentChar = field.charAt(start);
+        if (!Character.isAlphabetic(currentChar) && !Character.isDigit(currentChar)) {
+            return start + 1;
+        }
+
+        int end = start + 1;
+        while (end < field.length()
+                && (Character.isAlphabetic(field.charAt(end))
+                || Character.isDigit(field.charAt(end)))) {
+            end++;
+        }
+        return end;
+    }
+
+    /**
+     * Вычисляет высоту строки отчета так же, как generateRow, но без
+     * формирования ее текста. Перед вычислением проверяет ограничения.
+     *
+     * @throws ReportGeneratorException
+     */
+    private static int getRowHeight(String[] fields, ReportGeneratorSettings settings,
+            ReportGeneratorBudget budget) throws ReportGeneratorException {
+
+        budget.checkRow(fields);
+
+        if (fields.length != settings.getColumnsList().size()) {
+            throw new ReportGeneratorException(
+                    "The number of fields in a row doesn't match to the number of columns."
+            );
+        }
+
+        int maxHeight = 0;
+        int i = 0;
+        for (ReportGeneratorSettings.Column column : settings.getColumnsList()) {
+            int height = getFieldHeight(fields[i++], column.getWidth());
+            if (height > maxHeight) {
+                maxHeight = height;
+            }
+        }
+
+        return maxHeight;
+    }
+
     /**
      * Возвращает список отформатированных страниц
      *
      * @throws
      * com.github.byhalovie.reportgenerator.exceptions.ReportGeneratorException
      */
-    private static List<String> getPagesList(ReportGeneratorSettings settings, ReportGeneratorData data) throws ReportGeneratorException {
+    private static List<String> getPagesList(ReportGeneratorSettings settings, ReportGeneratorData data,
+            ReportGeneratorBudget budget) throws ReportGeneratorException {
 
         //  Формируем заголовок
         ReportRow head = generateHead(settings);
 
+        return getPagesList(settings, data.getData(), head, new PageStart(0, 0), Integer.MAX_VALUE, budget);
+    }
+
+    /**
+     * Возвращает список отформатированных страниц, начиная со страницы,
+     * заданной start, но не более pagesCount страниц.
+     *
+     * @param head заголовок отчета
+     * @param start строка, с которой начинается первая страница, и число
+     * страниц, на которые эта строка уже была разбита ранее
+     * @param pagesCount максимальное число страниц
+     * @param budget ограничения на формирование отчета
+     * @throws ReportGeneratorException
+     */
+    private static List<String> getPagesList(ReportGeneratorSettings settings,
+            List<String[]> data, ReportRow head, PageStart start, int pagesCount,
+            ReportGeneratorBudget budget) throws ReportGeneratorException {
+
         int realPageHeight = settings.getPageHeight() - head.height;
 
         if (realPageHeight <= 0) {
             throw new ReportGeneratorException("Page height too small.");
         }
 
-        //  Сформируем список отформатированных строк
-        List<ReportRow> rowsList = new ArrayList<>();
-
-        for (String[] row : data.getData()) {
-            rowsList.add(generateRow(row, settings));
-        }
-
         //<editor-fold defaultstate="collapsed" desc="Формирование страниц из строк">
         List<String> pagesList = new ArrayList<>();
 
+        //  Страницы, на которые строка была разбита до начала диапазона,
+        //  формируются заново, но в результат не попадают
+        int pagesToSkip = start.splits;
+
         ReportRow currentPage = new ReportRow(head.text, head.height);
 
-        Iterator<ReportRow> rowsIterator = rowsList.iterator();
-        ReportRow row = rowsIterator.next();
+        //  Строки форматируются по мере необходимости, строки групп и итогов
+        //  добавляются между ними
+        RowsSource rowsSource = new RowsSource(settings, data.listIterator(start.row), budget);
+        ReportRow row = rowsSource.next();
         do {
+            budget.checkTime();
             if (currentPage.height + row.height + 1 <= settings.getPageHeight()) {
 
                 //  Если строка помещается на страницу
                 //  то пишем ее на страницу и 
                 currentPage.text = currentPage.text + row.text + settings.getSeparator();
                 currentPage.height = currentPage.height + row.height + 1;
-                if (rowsIterator.hasNext()) {
+                if (rowsSource.hasNext()) {
 
                     // Если строки для обработки остались берем следующую
-                    row = rowsIterator.next();
+                    row = rowsSource.next();
                 } else {
 
                     // Если строки закончились то выходим из цикла
-                    pagesList.add(currentPage.text);
+                    addPage(pagesList, currentPage.text, budget);
                     break;
                 }
 
@@ -303,7 +436,10 @@ public final class ReportGenerator {
 
                 //  Если не помещается и на текущей странице что-то есть
                 //  то закрываем страницу и создаем новую
-                pagesList.add(currentPage.text);
+                addPage(pagesList, currentPage.text, budget);
+                if (pagesList.size() == pagesCount) {
+                    break;
+                }
                 currentPage = new ReportRow(head.text, head.height);
 
             } else /* currentString.isEmpty() */ {
@@ -318,7 +454,14 @@ public final class ReportGenerator {
                 for (int i = 0; i < realPageHeight; i++) {
                     currentPage.text = currentPage.text + splitedRow[i] + settings.getNewLineCode();
                 }
-                pagesList.add(currentPage.text);
+                if (pagesToSkip > 0) {
+                    pagesToSkip--;
+                } else {
+                    addPage(pagesList, currentPage.text, budget);
+                    if (pagesList.size() == pagesCount) {
+                        break;
+                    }
+                }
 
                 currentPage = new ReportRow(head.text, head.height);
                 row = new ReportRow("", separatableRow.height - realPageHeight);
@@ -333,6 +476,207 @@ public final class ReportGenerator {
         return pagesList;
 
     }
+
+    /**
+     * Добавляет страницу в список, проверяя ограничения на число страниц,
+     * длину отчета и срок
+     *
+     * @throws ReportGeneratorException
+     */
+    private static void addPage(List<String> pagesList, String page,
+            ReportGeneratorBudget budget) throws ReportGeneratorException {
+
+        pagesList.add(page);
+        budget.checkPagesCount(pagesList.size());
+        budget.addPage(page);
+    }
+
+    /**
+     * Проверяет ограничения и формирует строку отчета по строке данных
+     *
+     * @throws ReportGeneratorException
+     */
+    private static ReportRow generateRow(String[] fields, ReportGeneratorSettings settings,
+            ReportGeneratorBudget budget) throws ReportGeneratorException {
+
+        budget.checkRow(fields);
+        return generateRow(fields, settings);
+    }
+
+    /**
+     * Вычисляет границы страниц только по высотам строк, не формируя их
+     * текста. Логика совпадает с формированием страниц в getPagesList.
+     *
+     * @param headHeight высота заголовка отчета
+     * @param budget ограничения на формирование отчета
+     * @return начало каждой страницы отчета
+     * @throws ReportGeneratorException
+     */
+    private static List<PageStart> getPageStarts(ReportGeneratorSettings settings,
+            List<String[]> data, int headHeight, ReportGeneratorBudget budget)
+            throws ReportGeneratorException {
+
+        int pageHeight = settings.getPageHeight();
+        int realPageHeight = pageHeight - headHeight;
+
+        List<PageStart> pageStarts = new ArrayList<>();
+        pageStarts.add(new PageStart(0, 0));
+
+        int currentHeight = headHeight;
+        int rowIndex = 0;
+        int splits = 0;
+
+        Iterator<String[]> rowsIterator = data.iterator();
+        int rowHeight = getRowHeight(rowsIterator.next(), settings, budget);
+        do {
+            budget.checkTime();
+            if (currentHeight + rowHeight + 1 <= pageHeight) {
+
+                currentHeight = currentHeight + rowHeight + 1;
+                if (rowsIterator.hasNext()) {
+                    rowHeight = getRowHeight(rowsIterator.next(), settings, budget);
+                    rowIndex++;
+                    splits = 0;
+                } else {
+                    break;
+                }
+
+            } else if (currentHeight > headHeight) {
+
+                pageStarts.add(new PageStart(rowIndex, 0));
+                budget.checkPagesCount(pageStarts.size());
+                currentHeight = headHeight;
+
+            } else {
+
+                splits++;
+                pageStarts.add(new PageStart(rowIndex, splits));
+                budget.checkPagesCount(pageStarts.size());
+                rowHeight = rowHeight + 1 - realPageHeight;
+            }
+        } while (true);
+
+        return pageStarts;
+    }
+
+    /**
+     * Формирует отчет в несколько потоков. Сначала по высотам строк
+     * вычисляются границы страниц, затем каждый поток формирует свой
+     * непрерывный диапазон страниц. Результат совпадает с однопоточным.
+     *
+     * @param shards количество потоков
+     * @param budget ограничения на формирование отчета, общие для всех потоков
+     * @throws ReportGeneratorException
+     */
+    private static String generateShardedReport(final ReportGeneratorSettings settings,
+            ReportGeneratorData data, int shards, final ReportGeneratorBudget budget)
+            throws ReportGeneratorException {
+
+        final ReportRow head = generateHead(settings);
+
+        if (settings.getPageHeight() - head.height <= 0) {
+            throw new ReportGeneratorException("Page height too small.");
+        }
+
+        final List<String[]> rows = data.getData();
+        List<PageStart> pageStarts = getPageStarts(settings, rows, head.height, budget);
+
+        int pagesCount = pageStarts.size();
+        int partsCount = Math.min(shards, pagesCount);
+
+        ExecutorService executor = Executors.newFixedThreadPool(partsCount);
+        try {
+
+            List<Future<String>> parts = new ArrayList<>();
+            for (int i = 0; i < partsCount; i++) {
+
+                int firstPage = (int) ((long) pagesCount * i / partsCount);
+                int lastPage = (int) ((long) pagesCount * (i + 1) / partsCount);
+
+                final PageStart start = pageStarts.get(firstPage);
+                final int partPagesCount = lastPage - firstPage;
+
+                parts.add(executor.submit(new Callable<String>() {
+                    @Override
+                    public String call() throws ReportGeneratorException {
+                        return joinPages(settings,
+                                getPagesList(settings, rows, head, start, partPagesCount, budget));
+                    }
+                }));
+            }
+
+            List<String> partsList = new ArrayList<>();
+            for (Future<String> part : parts) {
+                partsList.add(part.get());
+            }
+
+            return joinPages(settings, partsList);
+
+        } catch (InterruptedException exception) {
+
+            Thread.currentThread().interrupt();
+            throw new ReportGeneratorException("Report generation interrupted.", exception);
+
+        } catch (ExecutionException exception) {
+
+            Throwable cause = exception.getCause();
+            if (cause instanceof ReportGeneratorException) {
+                throw (ReportGeneratorException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new ReportGeneratorException(cause);
+
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Собирает итоговый отчет из страниц, проставляя разделители страниц
+     *
+     * @throws ReportGeneratorException
+     */
+    private static String generateReport(ReportGeneratorSettings settings,
+            ReportGeneratorData data, ReportGeneratorBudget budget)
+            throws ReportGeneratorException {
+
+        //  Итоги групп зависят от всех предыдущих строк, поэтому при
+        //  группировке отчет формируется в одном потоке
+        if (settings.getShards() > 1 && !settings.isGrouped() && !data.getData().isEmpty()) {
+            return generateShardedReport(settings, data, settings.getShards(), budget);
+        }
+
+        return joinPages(settings, getPagesList(settings, data, budget));
+    }
+
+    /**
+     * Соединяет страницы (или части отчета из нескольких страниц),
+     * проставляя между ними разделители страниц
+     */
+    private static String joinPages(ReportGeneratorSettings settings, List<String> pagesList) {
+
+        //  Отчет собирается в одном буфере: сложение строк копировало бы
+        //  весь уже собранный отчет на каждой странице
+        long length = 0;
+        for (String page : pagesList) {
+            length = length + page.length() + settings.getPageSeparator().length()
+                    + settings.getNewLineCode().length();
+        }
+        StringBuilder report = new StringBuilder((int) Math.min(length, Integer.MAX_VALUE - 8));
+
+        //  Заполняем итоговый отчет страницами попутно проставляя разделители 
+        //  страниц
+        Iterator<String> pagesIterator = pagesList.iterator();
+        report.append(pagesIterator.next());
+        while (pagesIterator.hasNext()) {
+            report.append(settings.getPageSeparator())
+                    .append(settings.getNewLineCode()).append(pagesIterator.next());
+        }
+
+        return report.toString();
+    }
     //</editor-fold>
 
     //<editor-fold defaultstate="collapsed" desc="public static methods">
@@ -347,23 +691,222 @@ public final class ReportGenerator {
     public static String generateReport(String sourcePath, String settingsPath)
             throws ReportGeneratorException {
 
+        return generateReport(sourcePath, settingsPath, null,
+                new ReportGeneratorCancellation());
+    }
+
+    /**
+     * Возвращает сформированный отчет, читая данные через двоичный кэш.
+     * Устаревший или отсутствующий кэш перестраивается по файлу с данными.
+     *
+     * @param sourcePath путь к файлу с данными
+     * @param settingsPath путь к файлу с настройками
+     * @param cachePath путь к файлу кэша данных
+     * @return сформированный отчет
+     * @throws ReportGeneratorException
+     */
+    public static String generateReport(String sourcePath, String settingsPath,
+            String cachePath) throws ReportGeneratorException {
+
+        return generateReport(sourcePath, settingsPath, cachePath,
+                new ReportGeneratorCancellation());
+    }
+
+    /**
+     * Возвращает сформированный отчет с соблюдением ограничений из настроек.
+     * Формирование можно прервать из другого потока через cancellation.
+     *
+     * @param sourcePath путь к файлу с данными
+     * @param settingsPath путь к файлу с настройками
+     * @param cachePath путь к файлу кэша данных или null
+     * @param cancellation признак отмены формирования отчета
+     * @return сформированный отчет
+     * @throws ReportGeneratorBudgetException при превышении ограничений
+     * @throws ReportGeneratorCancelledException при отмене
+     * @throws ReportGeneratorException
+     */
+    public static String generateReport(String sourcePath, String settingsPath,
+            String cachePath, ReportGeneratorCancellation cancellation)
+            throws ReportGeneratorException {
+
         ReportGeneratorSettings settings = new ReportGeneratorSettings(settingsPath);
 
-        ReportGeneratorData data = new ReportGeneratorData(sourcePath);
+        //  Срок отсчитывается с момента чтения настроек и включает чтение данных
+        ReportGeneratorBudget budget = new ReportGeneratorBudget(settings, cancellation);
 
-        String report;
-        List<String> pagesList = getPagesList(settings, data);
+        ReportGeneratorData data = new ReportGeneratorData(sourcePath, cachePath, budget);
 
-        //  Заполняем итоговый отчет страницами попутно проставляя разделители 
-        //  страниц
-        Iterator<String> pagesIterator = pagesList.iterator();
-        report = pagesIterator.next();
-        while (pagesIterator.hasNext()) {
-            report = report + settings.getPageSeparator()
-                    + settings.getNewLineCode() + pagesIterator.next();
+        return generateReport(settings, data, budget);
+    }
+    //</editor-fold>
+
+    /**
+     * Начало страницы отчета: строка данных, с которой начинается страница,
+     * и число страниц, на которые эта строка была разбита до нее.
+     */
+    private static final class PageStart {
+
+        final int row;
+        final int splits;
+
+        PageStart(int row, int splits) {
+            this.row = row;
+            this.splits = splits;
         }
+    }
+
+    /**
+     * Источник строк отчета для формирования страниц. Форматирует строки
+     * данных по мере запроса и, если в настройках задана группировка, за один
+     * проход по данным добавляет заголовки групп, итоги групп и общий итог.
+     */
+    private static final class RowsSource {
+
+        private final ReportGeneratorSettings settings;
+        private final Iterator<String[]> dataIterator;
+        private final ReportGeneratorBudget budget;
+
+        private final Deque<ReportRow> pendingRows = new ArrayDeque<>();
+
+        private final ReportGeneratorAccumulator[] groupAccumulators;
+        private final ReportGeneratorAccumulator[] totalAccumulators;
+
+        private boolean groupStarted;
+        private String groupValue;
+        private boolean finished;
 
-        return report;
+        RowsSource(ReportGeneratorSettings settings, Iterator<String[]> dataIterator,
+                ReportGeneratorBudget budget) {
+
+            this.settings = settings;
+            this.dataIterator = dataIterator;
+            this.budget = budget;
+
+            List<ReportGeneratorSettings.Aggregate> aggregates = settings.getAggregatesList();
+            groupAccumulators = new ReportGeneratorAccumulator[aggregates.size()];
+            totalAccumulators = new ReportGeneratorAccumulator[aggregates.size()];
+            for (int i = 0; i < aggregates.size(); i++) {
+                groupAccumulators[i] = new ReportGeneratorAccumulator(aggregates.get(i));
+                totalAccumulators[i] = new ReportGeneratorAccumulator(aggregates.get(i));
+            }
+
+            //  Без группировки дополнительных строк в конце нет
+            finished = !settings.isGrouped();
+        }
+
+        boolean hasNext() {
+            return !pendingRows.isEmpty() || dataIterator.hasNext() || !finished;
+        }
+
+        ReportRow next() throws ReportGeneratorException {
+
+            while (pendingRows.isEmpty()) {
+
+                if (dataIterator.hasNext()) {
+
+                    String[] fields = dataIterator.next();
+                    ReportRow row = generateRow(fields, settings, budget);
+                    if (settings.isGrouped()) {
+                        accept(fields);
+                    }
+                    pendingRows.add(row);
+
+                } else if (!finished) {
+
+                    //  После последней строки закрываем группу и подводим
+                    //  общий итог
+                    finished = true;
+                    if (groupStarted && groupAccumulators.length > 0) {
+                        pendingRows.add(generateTotalRow(settings.getSubtotalTitle(), groupAccumulators));
+                    }
+                    if (settings.isGroupTotal() && totalAccumulators.length > 0) {
+                        pendingRows.add(generateTotalRow(settings.getTotalTitle(), totalAccumulators));
+                    }
+                    if (pendingRows.isEmpty()) {
+                        throw new NoSuchElementException();
+                    }
+
+                } else {
+                    throw new NoSuchElementException();
+                }
+            }
+
+            return pendingRows.poll();
+        }
+
+        /**
+         * Учитывает строку данных в итогах. При смене значения ключа
+         * добавляет итог предыдущей группы и заголовок новой.
+         */
+        private void accept(String[] fields) throws ReportGeneratorException {
+
+            int groupKey = settings.getGroupKey();
+            if (groupKey >= 0) {
+
+                String value = fields[groupKey];
+                if (!groupStarted || !(value == null ? groupValue == null : value.equals(groupValue))) {
+
+                    if (groupStarted && groupAccumulators.length > 0) {
+                        pendingRows.add(generateTotalRow(settings.getSubtotalTitle(), groupAccumulators));
+                    }
+                    for (ReportGeneratorAccumulator accumulator : groupAccumulators) {
+                        accumulator.reset();
+                    }
+
+                    String[] headFields = getEmptyFields();
+                    if (value != null && !value.isEmpty()) {
+                        headFields[groupKey] = value;
+                    }
+                    pendingRows.add(generateRow(headFields, settings));
+
+                    groupValue = value;
+                    groupStarted = true;
+                }
+            }
+
+            for (int i = 0; i < groupAccumulators.length; i++) {
+                String field = fields[groupAccumulators[i].getAggregate().getField()];
+                groupAccumulators[i].accept(field);
+                totalAccumulators[i].accept(field);
+            }
+        }
+
+        /**
+         * Формирует строку итогов. Значения итоговых функций выводятся в
+         * колонках, по которым они считаются, название строки - в первой
+         * свободной колонке.
+         */
+        private ReportRow generateTotalRow(String title, ReportGeneratorAccumulator[] accumulators)
+                throws ReportGeneratorException {
+
+            String[] fields = new String[settings.getColumnsList().size()];
+            for (ReportGeneratorAccumulator accumulator : accumulators) {
+                int field = accumulator.getAggregate().getField();
+                String value = accumulator.getAggregate().getTitle() + " " + accumulator.getValue();
+                fields[field] = fields[field] == null ? value : fields[field] + " " + value;
+            }
+
+            boolean titled = false;
+            for (int i = 0; i < fields.length; i++) {
+                if (fields[i] == null) {
+                    fields[i] = titled ? " " : title;
+                    titled = true;
+                }
+            }
+            if (!titled) {
+                fields[0] = title + " " + fields[0];
+            }
+
+            return generateRow(fields, settings);
+        }
+
+        /**
+         * Поле из одного пробела: пустое поле не форматируется по ширине.
+         */
+        private String[] getEmptyFields() {
+            String[] fields = new String[settings.getColumnsList().size()];
+            Arrays.fill(fields, " ");
+            return fields;
+        }
     }
-    //</editor-fold>
 }
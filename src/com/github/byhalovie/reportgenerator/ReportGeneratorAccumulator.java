@@ -0,0 +1,186 @@
+/*
+ * Copyright 2016 byhalovIE.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.byhalovie.reportgenerator;
+
+import java.util.Locale;
+
+/**
+ * Накопитель одной итоговой функции (count, sum, min, max) по одной колонке.
+ * Значения хранятся в примитивных полях long и double без упаковки. Пока
+ * все значения целые и сумма не переполняется, итог считается в long.
+ * Нечисловые поля учитываются только функцией count.
+ *
+ * @author byhalovIE
+ */
+final class ReportGeneratorAccumulator {
+
+    private final ReportGeneratorSettings.Aggregate aggregate;
+
+    private long count;
+    private long numbers;
+    private boolean integral;
+    private boolean sumOverflow;
+
+    private long longSum;
+    private long longMin;
+    private long longMax;
+
+    private double doubleSum;
+    private double doubleMin;
+    private double doubleMax;
+
+    ReportGeneratorAccumulator(ReportGeneratorSettings.Aggregate aggregate) {
+        this.aggregate = aggregate;
+        reset();
+    }
+
+    ReportGeneratorSettings.Aggregate getAggregate() {
+        return aggregate;
+    }
+
+    void reset() {
+        count = 0;
+        numbers = 0;
+        integral = true;
+        sumOverflow = false;
+        longSum = 0;
+        longMin = Long.MAX_VALUE;
+        longMax = Long.MIN_VALUE;
+        doubleSum = 0;
+        doubleMin = Double.POSITIVE_INFINITY;
+        doubleMax = Double.NEGATIVE_INFINITY;
+    }
+
+    /**
+     * Учитывает поле строки данных.
+     */
+    void accept(String field) {
+
+        count++;
+        if (aggregate.getFunction() == ReportGeneratorSettings.Aggregate.COUNT
+                || field == null) {
+            return;
+        }
+
+        int start = 0;
+        int end = field.length();
+        while (start < end && field.charAt(start) == ' ') {
+            start++;
+        }
+        while (end > start && field.charAt(end - 1) == ' ') {
+            end--;
+        }
+        if (start == end) {
+            return;
+        }
+
+        //  Целые числа разбираем вручную, чтобы не создавать объектов.
+        //  Значение накапливается со знаком минус, как в Long.parseLong,
+        //  чтобы поместился и Long.MIN_VALUE. В double переходим только
+        //  при настоящем переполнении long
+        boolean negative = field.charAt(start) == '-';
+        int position = negative || field.charAt(start) == '+' ? start + 1 : start;
+        if (position < end) {
+            long limit = negative ? Long.MIN_VALUE : -Long.MAX_VALUE;
+            long value = 0;
+            int i = position;
+            while (i < end && field.charAt(i) >= '0' && field.charAt(i) <= '9') {
+                int digit = field.charAt(i) - '0';
+                if (value < limit / 10 || value * 10 < limit + digit) {
+                    break;
+                }
+                value = value * 10 - digit;
+                i++;
+            }
+            if (i == end) {
+                acceptLong(negative ? value : -value);
+                return;
+            }
+        }
+
+        //  Дробные числа, в том числе с запятой в качестве разделителя
+        for (int i = start; i < end; i++) {
+            char c = field.charAt(i);
+            if ((c < '0' || c > '9') && c != '.' && c != ',' && c != '-'
+                    && c != '+' && c != 'e' && c != 'E') {
+                return;
+            }
+        }
+        try {
+            acceptDouble(Double.parseDouble(
+                    field.substring(start, end).replace(',', '.')));
+        } catch (NumberFormatException exception) {
+            //  Нечисловое поле не участвует в sum, min и max
+        }
+    }
+
+    private void acceptLong(long value) {
+
+        numbers++;
+
+        //  Переполнение суммы переводит в double только сумму, min и max
+        //  целых чисел остаются точными
+        long sum = longSum + value;
+        if (((longSum ^ sum) & (value ^ sum)) < 0) {
+            sumOverflow = true;
+        }
+        longSum = sum;
+        longMin = Math.min(longMin, value);
+        longMax = Math.max(longMax, value);
+
+        doubleSum = doubleSum + value;
+        doubleMin = Math.min(doubleMin, value);
+        doubleMax = Math.max(doubleMax, value);
+    }
+
+    private void acceptDouble(double value) {
+
+        numbers++;
+        integral = false;
+
+        doubleSum = doubleSum + value;
+        doubleMin = Math.min(doubleMin, value);
+        doubleMax = Math.max(doubleMax, value);
+    }
+
+    /**
+     * @return значение итоговой функции в виде текста для ячейки отчета
+     */
+    String getValue() {
+
+        switch (aggregate.getFunction()) {
+            case ReportGeneratorSettings.Aggregate.COUNT:
+                return Long.toString(count);
+            case ReportGeneratorSettings.Aggregate.SUM:
+                return integral && !sumOverflow
+                        ? Long.toString(longSum) : format(doubleSum);
+            case ReportGeneratorSettings.Aggregate.MIN:
+                if (numbers == 0) {
+                    return "-";
+                }
+                return integral ? Long.toString(longMin) : format(doubleMin);
+            default:
+                if (numbers == 0) {
+                    return "-";
+                }
+                return integral ? Long.toString(longMax) : format(doubleMax);
+        }
+    }
+
+    private static String format(double value) {
+        return String.format(Locale.ROOT, "%.2f", value);
+    }
+}
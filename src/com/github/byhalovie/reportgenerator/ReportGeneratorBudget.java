@@ -0,0 +1,194 @@
+/*
+ * Copyright 2016 byhalovIE.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.byhalovie.reportgenerator;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Ограничения на формирование одного отчета. Объединяет лимиты из настроек,
+ * срок окончания и признак отмены. Значение лимита 0 означает его
+ * отсутствие.
+ *
+ * @author byhalovIE
+ */
+final class ReportGeneratorBudget {
+
+    /**
+     * Бюджет без ограничений, используется при чтении данных вне генератора.
+     */
+    static final ReportGeneratorBudget UNLIMITED = new ReportGeneratorBudget(
+            0, 0, 0, 0, 0, 0, 0, new ReportGeneratorCancellation());
+
+    /**
+     * Наибольший срок в миллисекундах (около 146 лет). Больший срок
+     * переполнил бы перевод в наносекунды и сравнение с System.nanoTime().
+     */
+    private static final long MAX_TIMEOUT = Long.MAX_VALUE / 2 / 1000000L;
+
+    /**
+     * Оценка памяти под объект String без его символов: заголовок объекта,
+     * поля и заголовок массива символов.
+     */
+    private static final int STRING_OVERHEAD = 40;
+
+    /**
+     * Оценка памяти под строку данных без полей: массив ссылок и ссылка на
+     * него в списке строк.
+     */
+    private static final int ROW_OVERHEAD = 24;
+
+    private final int maxRows;
+    private final int maxPages;
+    private final long maxLength;
+    private final int pageSeparatorLength;
+    private final int maxFieldLength;
+    private final long maxMemory;
+    private final long deadline;
+    private final ReportGeneratorCancellation cancellation;
+
+    //  Длина уже сформированных страниц вместе с разделителями, общая для
+    //  всех потоков
+    private final AtomicLong length;
+
+    //  Оценка памяти, занятой прочитанными строками данных и страницами
+    private final AtomicLong memory = new AtomicLong();
+
+    ReportGeneratorBudget(ReportGeneratorSettings settings,
+            ReportGeneratorCancellation cancellation) {
+        this(settings.getMaxRows(), settings.getMaxPages(),
+                settings.getMaxLength(),
+                settings.getPageSeparator().length() + settings.getNewLineCode().length(),
+                settings.getMaxFieldLength(), settings.getMaxMemory(),
+                settings.getTimeout(), cancellation);
+    }
+
+    private ReportGeneratorBudget(int maxRows, int maxPages, long maxLength,
+            int pageSeparatorLength, int maxFieldLength, long maxMemory,
+            long timeout, ReportGeneratorCancellation cancellation) {
+        this.maxRows = maxRows;
+        this.maxPages = maxPages;
+        this.maxLength = maxLength;
+        this.pageSeparatorLength = pageSeparatorLength;
+        //  Разделитель стоит перед каждой страницей, кроме первой. Каждая
+        //  страница учитывается вместе с разделителем, поэтому один
+        //  разделитель вычитается заранее
+        this.length = new AtomicLong(-pageSeparatorLength);
+        this.maxFieldLength = maxFieldLength;
+        this.maxMemory = maxMemory;
+        this.deadline = timeout > 0
+                ? System.nanoTime() + Math.min(timeout, MAX_TIMEOUT) * 1000000L : 0;
+        this.cancellation = cancellation;
+    }
+
+    /**
+     * Число строк данных, которое достаточно прочитать, чтобы обнаружить
+     * превышение лимита, или 0, если лимита нет.
+     */
+    int getRowsToRead() {
+        return maxRows > 0 ? maxRows + 1 : 0;
+    }
+
+    void checkRowsCount(int rowsCount) throws ReportGeneratorBudgetException {
+        if (maxRows > 0 && rowsCount > maxRows) {
+            throw new ReportGeneratorBudgetException(
+                    "The number of data rows exceeds " + maxRows + ".");
+        }
+    }
+
+    void checkPagesCount(int pagesCount) throws ReportGeneratorBudgetException {
+        if (maxPages > 0 && pagesCount > maxPages) {
+            throw new ReportGeneratorBudgetException(
+                    "The number of pages exceeds " + maxPages + ".");
+        }
+    }
+
+    /**
+     * Учитывает длину очередной сформированной страницы и разделителя
+     * страниц перед ней. Порядок страниц при этом не важен, поэтому сумма
+     * совпадает с длиной отчета и при формировании в несколько потоков.
+     */
+    void addPage(String page) throws ReportGeneratorException {
+        checkTime();
+        if (maxLength > 0
+                && length.addAndGet(page.length() + pageSeparatorLength) > maxLength) {
+            throw new ReportGeneratorBudgetException(
+                    "The report length exceeds " + maxLength + " characters.");
+        }
+
+        //  Страница хранится до конца формирования и еще раз копируется
+        //  в итоговый текст отчета, поэтому учитывается дважды
+        addMemory(2 * (STRING_OVERHEAD + 2L * page.length()));
+    }
+
+    /**
+     * Учитывает память, занятую прочитанной строкой данных. Строки,
+     * прочитанные из кэша, в куче не хранятся и не учитываются.
+     */
+    void addRow(String[] fields) throws ReportGeneratorBudgetException {
+        if (maxMemory == 0) {
+            return;
+        }
+
+        long rowMemory = ROW_OVERHEAD + 8L * fields.length;
+        for (String field : fields) {
+            if (field != null) {
+                rowMemory += STRING_OVERHEAD + 2L * field.length();
+            }
+        }
+        addMemory(rowMemory);
+    }
+
+    private void addMemory(long bytes) throws ReportGeneratorBudgetException {
+        if (maxMemory > 0 && memory.addAndGet(bytes) > maxMemory) {
+            throw new ReportGeneratorBudgetException(
+                    "The estimated report memory exceeds " + maxMemory + " bytes.");
+        }
+    }
+
+    /**
+     * Проверяет отмену и срок. Вызывается на каждом шаге разбиения на
+     * страницы, а не только на каждой строке данных, так как высокая строка
+     * может разбиваться на страницы долго.
+     */
+    void checkTime() throws ReportGeneratorException {
+
+        if (cancellation.isCancelled()) {
+            throw new ReportGeneratorCancelledException("Report generation cancelled.");
+        }
+
+        if (deadline != 0 && System.nanoTime() - deadline > 0) {
+            throw new ReportGeneratorBudgetException("Report generation timed out.");
+        }
+    }
+
+    /**
+     * Проверяет отмену, срок и длины полей перед обработкой строки данных.
+     * Слишком длинное поле отбрасывается до форматирования по ширине.
+     */
+    void checkRow(String[] fields) throws ReportGeneratorException {
+
+        checkTime();
+
+        if (maxFieldLength > 0) {
+            for (String field : fields) {
+                if (field != null && field.length() > maxFieldLength) {
+                    throw new ReportGeneratorBudgetException(
+                            "Field length exceeds " + maxFieldLength + " characters.");
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,43 @@
+/*
+ * Copyright 2016 byhalovIE.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.byhalovie.reportgenerator;
+
+/**
+ * Признак отмены формирования отчета. Вызывающий код передает его в
+ * ReportGenerator.generateReport и может вызвать cancel() из другого потока.
+ * Генератор проверяет признак после каждой строки и прерывает работу
+ * исключением ReportGeneratorCancelledException.
+ *
+ * @author byhalovIE
+ */
+public final class ReportGeneratorCancellation {
+
+    private volatile boolean cancelled;
+
+    /**
+     * Запрашивает отмену формирования отчета.
+     */
+    public void cancel() {
+        cancelled = true;
+    }
+
+    /**
+     * @return true, если отмена была запрошена
+     */
+    public boolean isCancelled() {
+        return cancelled;
+    }
+}
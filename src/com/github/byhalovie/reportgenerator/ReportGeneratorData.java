@@ -18,7 +18,11 @@ package com.github.byhalovie.reportgenerator;
 import com.univocity.parsers.tsv.TsvParser;
 import com.univocity.parsers.tsv.TsvParserSettings;
 import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 /**
  * Класс предназначен для извлечение из файла и хранения данных, подлежащих
@@ -32,15 +36,110 @@ public final class ReportGeneratorData {
     private final String encoding = "UTF-16";
 
     public ReportGeneratorData(String tsvPath) throws ReportGeneratorException {
+        this(tsvPath, null, ReportGeneratorBudget.UNLIMITED);
+    }
+
+    /**
+     * Читает данные из двоичного кэша, если он соответствует исходному файлу.
+     * Иначе разбирает исходный tsv файл и перестраивает по нему кэш.
+     *
+     * @param tsvPath путь к файлу с данными
+     * @param cachePath путь к файлу кэша
+     * @throws ReportGeneratorException
+     */
+    public ReportGeneratorData(String tsvPath, String cachePath)
+            throws ReportGeneratorException {
+        this(tsvPath, cachePath, ReportGeneratorBudget.UNLIMITED);
+    }
+
+    /**
+     * Читает данные с учетом ограничений на формирование отчета. Разбор
+     * файла прекращается, как только превышен лимит строк.
+     *
+     * @param tsvPath путь к файлу с данными
+     * @param cachePath путь к файлу кэша или null, если кэш не используется
+     * @param budget ограничения на формирование отчета
+     * @throws ReportGeneratorException
+     */
+    ReportGeneratorData(String tsvPath, String cachePath, ReportGeneratorBudget budget)
+            throws ReportGeneratorException {
+
+        File source = new File(tsvPath);
+        File cache = cachePath == null ? null : new File(cachePath);
+
+        if (cache != null && ReportGeneratorDataCache.isFresh(source, cache)) {
+            try {
+                allRows = ReportGeneratorDataCache.read(cache);
+                budget.checkRowsCount(allRows.size());
+                return;
+            } catch (IOException exception) {
+                Logger.getLogger(ReportGeneratorData.class.getName())
+                        .log(Level.WARNING, "Unable to read cache " + cachePath, exception);
+            }
+        }
+
+        //  Состояние файла запоминаем до разбора, чтобы не сохранить в кэш
+        //  старые строки под размером и временем измененного файла
+        long sourceLength = source.length();
+        long sourceLastModified = source.lastModified();
+
+        allRows = parseTsv(tsvPath, budget);
+        budget.checkRowsCount(allRows.size());
 
+        if (cache == null) {
+            return;
+        }
+
+        if (source.length() != sourceLength
+                || source.lastModified() != sourceLastModified) {
+            Logger.getLogger(ReportGeneratorData.class.getName())
+                    .log(Level.WARNING, "Data file changed while reading, cache "
+                            + cachePath + " is not written");
+            return;
+        }
+
+        //  Ошибка записи кэша не мешает формированию отчета
+        try {
+            ReportGeneratorDataCache.write(
+                    sourceLength, sourceLastModified, allRows, cache);
+        } catch (IOException exception) {
+            Logger.getLogger(ReportGeneratorData.class.getName())
+                    .log(Level.WARNING, "Unable to write cache " + cachePath, exception);
+        }
+    }
+
+    private List<String[]> parseTsv(String tsvPath, ReportGeneratorBudget budget)
+            throws ReportGeneratorException {
+
+        TsvParser parser = null;
         try {
             File file = new File(tsvPath);
 
             TsvParserSettings settings = new TsvParserSettings();
 
-            TsvParser parser = new TsvParser(settings);
+            parser = new TsvParser(settings);
 
-            allRows = parser.parseAll(file, encoding);
+            //  Читаем построчно, чтобы не дочитывать файл при превышении
+            //  ограничений
+            List<String[]> rows = new ArrayList<>();
+            int rowsToRead = budget.getRowsToRead();
+
+            parser.beginParsing(file, encoding);
+            String[] row;
+            while ((row = parser.parseNext()) != null) {
+                budget.checkRow(row);
+                budget.addRow(row);
+                rows.add(row);
+                if (rows.size() == rowsToRead) {
+                    break;
+                }
+            }
+
+            return rows;
+
+        } catch (ReportGeneratorException exception) {
+
+            throw exception;
 
         } catch (Exception exception) {
 
@@ -48,6 +147,11 @@ public final class ReportGeneratorData {
                     "Error reading data tsv file\n" + tsvPath,
                     exception
             );
+        } finally {
+
+            if (parser != null) {
+                parser.stopParsing();
+            }
         }
     }
 
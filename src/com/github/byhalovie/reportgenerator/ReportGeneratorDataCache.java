@@ -0,0 +1,306 @@
+/*
+ * Copyright 2016 byhalovIE.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.byhalovie.reportgenerator;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.AbstractList;
+import java.util.List;
+import java.util.RandomAccess;
+
+/**
+ * Двоичный кэш предварительно разобранного файла с данными. Позволяет не
+ * разбирать один и тот же tsv файл заново при каждом формировании отчета.
+ *
+ * Формат файла:
+ * <pre>
+ * заголовок:  int магическое число, int версия,
+ *             long размер исходного файла, long время его изменения,
+ *             int количество строк
+ * индекс:     long[количество строк] смещения строк от начала файла
+ * строки:     int количество полей, затем для каждого поля
+ *             int длина в байтах (-1 для пустого поля) и байты в UTF-8
+ * </pre>
+ *
+ * @author byhalovIE
+ */
+final class ReportGeneratorDataCache {
+
+    private static final int MAGIC = 0x52474443;
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 4 + 4 + 8 + 8 + 4;
+    private static final Charset CHARSET = Charset.forName("UTF-8");
+
+    private ReportGeneratorDataCache() {
+    }
+
+    /**
+     * Проверяет, соответствует ли кэш текущему состоянию исходного файла.
+     *
+     * @param source исходный tsv файл
+     * @param cache файл кэша
+     * @return true, если кэш можно использовать вместо исходного файла
+     */
+    static boolean isFresh(File source, File cache) {
+
+        if (!cache.isFile() || cache.length() < HEADER_SIZE
+                || cache.length() > Integer.MAX_VALUE) {
+            return false;
+        }
+
+        try (RandomAccessFile file = new RandomAccessFile(cache, "r")) {
+
+            return file.readInt() == MAGIC
+                    && file.readInt() == VERSION
+                    && file.readLong() == source.length()
+                    && file.readLong() == source.lastModified();
+
+        } catch (IOException exception) {
+            return false;
+        }
+    }
+
+    /**
+     * Записывает разобранные строки исходного файла в файл кэша. Размер и
+     * время изменения исходного файла должны быть получены до его разбора,
+     * иначе изменения файла во время разбора не будут замечены.
+     *
+     * @param sourceLength размер исходного tsv файла
+     * @param sourceLastModified время изменения исходного tsv файла
+     * @param rows разобранные строки
+     * @param cache файл кэша
+     * @throws IOException
+     */
+    static void write(long sourceLength, long sourceLastModified,
+            List<String[]> rows, File cache) throws IOException {
+
+        //  Пишем в собственный временный файл и атомарно подменяем им кэш,
+        //  чтобы параллельно работающий процесс не прочитал недописанный кэш
+        //  и не перезаписал наш временный файл
+        File directory = cache.getAbsoluteFile().getParentFile();
+        File temporary = File.createTempFile(
+                cache.getName() + ".part", ".tmp", directory);
+        try {
+            try (FileOutputStream stream = new FileOutputStream(temporary)) {
+
+                //  Сначала пишем строки после места под заголовок и индекс,
+                //  запоминая их смещения, а затем возвращаемся в начало файла
+                //  за индексом. Так каждое поле кодируется только один раз
+                FileChannel channel = stream.getChannel();
+                long[] offsets = new long[rows.size()];
+                long dataStart = HEADER_SIZE + 8L * rows.size();
+                channel.position(dataStart);
+
+                DataOutputStream output = new DataOutputStream(
+                        new BufferedOutputStream(stream));
+                for (int i = 0; i < rows.size(); i++) {
+                    offsets[i] = dataStart + output.size();
+                    if (offsets[i] > Integer.MAX_VALUE - 4) {
+                        throw new IOException("Data too large to be cached.");
+                    }
+
+                    String[] row = rows.get(i);
+                    output.writeInt(row.length);
+                    for (String field : row) {
+                        if (field == null) {
+                            output.writeInt(-1);
+                        } else {
+                            byte[] bytes = field.getBytes(CHARSET);
+                            output.writeInt(bytes.length);
+                            output.write(bytes);
+                        }
+                    }
+                }
+                if (dataStart + output.size() >= Integer.MAX_VALUE) {
+                    throw new IOException("Data too large to be cached.");
+                }
+                output.flush();
+
+                channel.position(0);
+                output = new DataOutputStream(new BufferedOutputStream(stream));
+                output.writeInt(MAGIC);
+                output.writeInt(VERSION);
+                output.writeLong(sourceLength);
+                output.writeLong(sourceLastModified);
+                output.writeInt(rows.size());
+                for (long offset : offsets) {
+                    output.writeLong(offset);
+                }
+                output.flush();
+            }
+
+            Files.move(temporary.toPath(), cache.toPath(),
+                    StandardCopyOption.ATOMIC_MOVE,
+                    StandardCopyOption.REPLACE_EXISTING);
+
+        } finally {
+            //  После успешной подмены временного файла уже нет
+            temporary.delete();
+        }
+    }
+
+    /**
+     * Отображает файл кэша в память и возвращает список строк, поля которых
+     * декодируются только при обращении к строке.
+     *
+     * @param cache файл кэша
+     * @return список строк
+     * @throws IOException
+     */
+    static List<String[]> read(File cache) throws IOException {
+
+        MappedByteBuffer buffer;
+        try (RandomAccessFile file = new RandomAccessFile(cache, "r");
+                FileChannel channel = file.getChannel()) {
+            if (channel.size() < HEADER_SIZE || channel.size() > Integer.MAX_VALUE) {
+                throw new IOException("Unknown cache file format " + cache);
+            }
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+
+        if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+            throw new IOException("Unknown cache file format " + cache);
+        }
+
+        checkBounds(buffer, cache);
+
+        return new MappedRows(buffer);
+    }
+
+    /**
+     * Проверяет, что индекс и строки кэша целиком помещаются в файл. Иначе
+     * поврежденный кэш привел бы к ошибке уже при формировании отчета.
+     *
+     * @param buffer отображенный в память файл кэша
+     * @param cache файл кэша
+     * @throws IOException если кэш поврежден
+     */
+    private static void checkBounds(ByteBuffer buffer, File cache)
+            throws IOException {
+
+        long limit = buffer.limit();
+        int size = buffer.getInt(HEADER_SIZE - 4);
+        long dataStart = HEADER_SIZE + 8L * size;
+        if (size < 0 || dataStart > limit) {
+            throw new IOException("Damaged cache file " + cache);
+        }
+
+        //  Смещения строк должны возрастать и не выходить за конец файла
+        long previous = dataStart;
+        for (int i = 0; i < size; i++) {
+            long offset = buffer.getLong(HEADER_SIZE + 8 * i);
+            if (offset < previous || offset + 4 > limit) {
+                throw new IOException("Damaged cache file " + cache);
+            }
+            previous = offset + 4;
+        }
+
+        //  Конец последней строки должен совпадать с концом файла
+        long end = dataStart;
+        if (size > 0) {
+            end = previous;
+            int fieldsCount = buffer.getInt((int) previous - 4);
+            if (fieldsCount < 0) {
+                throw new IOException("Damaged cache file " + cache);
+            }
+            for (int i = 0; i < fieldsCount; i++) {
+                if (end + 4 > limit) {
+                    throw new IOException("Damaged cache file " + cache);
+                }
+                int length = buffer.getInt((int) end);
+                end += 4 + Math.max(length, 0);
+            }
+        }
+
+        if (end != limit) {
+            throw new IOException("Damaged cache file " + cache);
+        }
+    }
+
+    /**
+     * Список строк, читаемый из отображенного в память файла кэша по индексу
+     * смещений.
+     */
+    private static final class MappedRows extends AbstractList<String[]>
+            implements RandomAccess {
+
+        private final ByteBuffer buffer;
+        private final int size;
+
+        MappedRows(ByteBuffer buffer) {
+            this.buffer = buffer;
+            this.size = buffer.getInt(HEADER_SIZE - 4);
+        }
+
+        @Override
+        public String[] get(int index) {
+
+            if (index < 0 || index >= size) {
+                throw new IndexOutOfBoundsException("Index: " + index);
+            }
+
+            int position = (int) buffer.getLong(HEADER_SIZE + 8 * index);
+
+            String[] row = new String[buffer.getInt(position)];
+
+            //  Сначала по длинам полей находим самое длинное, чтобы выделить
+            //  один буфер на всю строку
+            int maxLength = 0;
+            int lengthPosition = position + 4;
+            for (int i = 0; i < row.length; i++) {
+                int length = buffer.getInt(lengthPosition);
+                lengthPosition += 4;
+                if (length > 0) {
+                    maxLength = Math.max(maxLength, length);
+                    lengthPosition += length;
+                }
+            }
+            byte[] bytes = new byte[maxLength];
+
+            //  Поля читаются последовательно через одну копию буфера, чтобы
+            //  не менять позицию общего буфера
+            ByteBuffer fields = buffer.duplicate();
+            ((Buffer) fields).position(position + 4);
+            for (int i = 0; i < row.length; i++) {
+                int length = fields.getInt();
+                if (length < 0) {
+                    continue;
+                }
+
+                fields.get(bytes, 0, length);
+                row[i] = new String(bytes, 0, length, CHARSET);
+            }
+
+            return row;
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+    }
+}
@@ -42,10 +42,25 @@ public final class ReportGeneratorSettings {
 
     private List<Column> columnsList;
 
+    private int shards = 1;
+
+    private int maxRows;
+    private int maxPages;
+    private long maxLength;
+    private int maxFieldLength;
+    private long maxMemory;
+    private long timeout;
+
+    private int groupKey = -1;
+    private boolean groupTotal;
+    private List<Aggregate> aggregatesList = new ArrayList<>();
+
     private final String newLineCode = "\r\n";
     private final String verticalSeparator = "|";
     private final String horizontalSeparator = "-";
     private final String pageSeparator = "~";
+    private final String subtotalTitle = "Итого";
+    private final String totalTitle = "Всего";
     private final String separator;
     //</editor-fold>
 
@@ -88,6 +103,31 @@ public final class ReportGeneratorSettings {
                 columnsList.add(new Column(title, width));
             }
 
+            // Необязательная настройка: число потоков формирования отчета
+            NodeList shardsNodesList = document.getElementsByTagName("shards");
+            if (shardsNodesList.getLength() > 0) {
+                shards = Math.max(1, Integer.parseInt(
+                        shardsNodesList.item(0).getTextContent().trim()
+                ));
+            }
+
+            // Необязательные ограничения на формирование отчета
+            Element limits = (Element) document.getElementsByTagName("limits").item(0);
+            if (limits != null) {
+                maxRows = (int) getLimit(limits, "rows");
+                maxPages = (int) getLimit(limits, "pages");
+                maxLength = getLimit(limits, "length");
+                maxFieldLength = (int) getLimit(limits, "fieldLength");
+                maxMemory = getLimit(limits, "memory");
+                timeout = getLimit(limits, "timeout");
+            }
+
+            // Необязательные группировка и итоги
+            Element grouping = (Element) document.getElementsByTagName("grouping").item(0);
+            if (grouping != null) {
+                readGrouping(grouping);
+            }
+
         } catch (ParserConfigurationException | SAXException | IOException |
                 DOMException | NumberFormatException exception) {
             throw new ReportGeneratorException(
@@ -96,10 +136,83 @@ public final class ReportGeneratorSettings {
             );
         }
 
+        for (Aggregate aggregate : aggregatesList) {
+            if (aggregate.getField() < 0 || aggregate.getField() >= columnsList.size()) {
+                throw new ReportGeneratorException(
+                        "Aggregate field doesn't match any column: " + (aggregate.getField() + 1)
+                );
+            }
+        }
+        if (groupKey >= columnsList.size()) {
+            throw new ReportGeneratorException(
+                    "Group key doesn't match any column: " + (groupKey + 1)
+            );
+        }
+
         separator = String.format("%1$-" + pageWidth + "s", "")
                 .replaceAll(" ", horizontalSeparator) + newLineCode;
     }
 
+    /**
+     * Читает настройки группировки. Номера колонок в файле настроек
+     * начинаются с 1.
+     */
+    private void readGrouping(Element grouping) throws ReportGeneratorException {
+
+        NodeList keyNodesList = grouping.getElementsByTagName("key");
+        if (keyNodesList.getLength() > 0) {
+            groupKey = Integer.parseInt(keyNodesList.item(0).getTextContent().trim()) - 1;
+            if (groupKey < 0) {
+                throw new ReportGeneratorException("Invalid group key: " + (groupKey + 1));
+            }
+        }
+
+        NodeList totalNodesList = grouping.getElementsByTagName("total");
+        groupTotal = totalNodesList.getLength() == 0
+                || Boolean.parseBoolean(totalNodesList.item(0).getTextContent().trim());
+
+        NodeList aggregateNodesList = grouping.getElementsByTagName("aggregate");
+        for (int i = 0; i < aggregateNodesList.getLength(); i++) {
+            Element aggregate = (Element) aggregateNodesList.item(i);
+
+            String function = getAggregateValue(aggregate, "function");
+            int field = Integer.parseInt(getAggregateValue(aggregate, "field")) - 1;
+
+            aggregatesList.add(new Aggregate(Aggregate.parseFunction(function), field));
+        }
+    }
+
+    /**
+     * Читает обязательный параметр итоговой функции.
+     */
+    private static String getAggregateValue(Element aggregate, String name)
+            throws ReportGeneratorException {
+
+        NodeList nodesList = aggregate.getElementsByTagName(name);
+        if (nodesList.getLength() == 0) {
+            throw new ReportGeneratorException("Aggregate has no <" + name + "> element");
+        }
+        return nodesList.item(0).getTextContent().trim();
+    }
+
+    /**
+     * Читает значение ограничения. Отсутствующее ограничение равно 0.
+     */
+    private static long getLimit(Element limits, String name) {
+
+        NodeList nodesList = limits.getElementsByTagName(name);
+        if (nodesList.getLength() == 0) {
+            return 0;
+        }
+
+        long limit = Long.parseLong(nodesList.item(0).getTextContent().trim());
+        if (limit < 0 || limit > Integer.MAX_VALUE && !"length".equals(name)
+                && !"memory".equals(name) && !"timeout".equals(name)) {
+            throw new NumberFormatException("Invalid limit " + name + ": " + limit);
+        }
+        return limit;
+    }
+
     //<editor-fold defaultstate="collapsed" desc="Accessors">
     /**
      * @return the pageWidth
@@ -156,6 +269,98 @@ public final class ReportGeneratorSettings {
     public String getSeparator() {
         return separator;
     }
+
+    /**
+     * @return the subtotalTitle
+     */
+    public String getSubtotalTitle() {
+        return subtotalTitle;
+    }
+
+    /**
+     * @return the totalTitle
+     */
+    public String getTotalTitle() {
+        return totalTitle;
+    }
+
+    /**
+     * @return true if rows are grouped or totals are computed
+     */
+    public boolean isGrouped() {
+        return groupKey >= 0 || !aggregatesList.isEmpty();
+    }
+
+    /**
+     * @return the index of the group key column, -1 if rows are not grouped
+     */
+    public int getGroupKey() {
+        return groupKey;
+    }
+
+    /**
+     * @return true if the grand total row is added after the last row
+     */
+    public boolean isGroupTotal() {
+        return groupTotal;
+    }
+
+    /**
+     * @return the aggregatesList
+     */
+    public List<Aggregate> getAggregatesList() {
+        return aggregatesList;
+    }
+
+    /**
+     * @return the shards
+     */
+    public int getShards() {
+        return shards;
+    }
+
+    /**
+     * @return the maximum number of data rows, 0 if not limited
+     */
+    public int getMaxRows() {
+        return maxRows;
+    }
+
+    /**
+     * @return the maximum number of pages, 0 if not limited
+     */
+    public int getMaxPages() {
+        return maxPages;
+    }
+
+    /**
+     * @return the maximum report length in characters, 0 if not limited
+     */
+    public long getMaxLength() {
+        return maxLength;
+    }
+
+    /**
+     * @return the maximum field length in characters, 0 if not limited
+     */
+    public int getMaxFieldLength() {
+        return maxFieldLength;
+    }
+
+    /**
+     * @return the maximum estimated memory of data rows and pages in bytes,
+     * 0 if not limited
+     */
+    public long getMaxMemory() {
+        return maxMemory;
+    }
+
+    /**
+     * @return the report generation timeout in milliseconds, 0 if not limited
+     */
+    public long getTimeout() {
+        return timeout;
+    }
     //</editor-fold>
 
     final class Column {
@@ -176,4 +381,44 @@ public final class ReportGeneratorSettings {
             return width;
         }
     }
+
+    static final class Aggregate {
+
+        static final int COUNT = 0;
+        static final int SUM = 1;
+        static final int MIN = 2;
+        static final int MAX = 3;
+
+        private static final String[] FUNCTIONS = {"count", "sum", "min", "max"};
+        private static final String[] TITLES = {"кол-во", "сумма", "мин", "макс"};
+
+        private final int function;
+        private final int field;
+
+        Aggregate(int function, int field) {
+            this.function = function;
+            this.field = field;
+        }
+
+        static int parseFunction(String function) throws ReportGeneratorException {
+            for (int i = 0; i < FUNCTIONS.length; i++) {
+                if (FUNCTIONS[i].equals(function)) {
+                    return i;
+                }
+            }
+            throw new ReportGeneratorException("Unknown aggregate function: " + function);
+        }
+
+        public int getFunction() {
+            return function;
+        }
+
+        public int getField() {
+            return field;
+        }
+
+        public String getTitle() {
+            return TITLES[function];
+        }
+    }
 }